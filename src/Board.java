@@ -0,0 +1,455 @@
+import java.util.Arrays;
+import java.util.Random;
+
+class Board {
+    public static final int REVEAL = 0, FLAG = 1, UNFLAG = 2, CHORD = 3;
+    // seed of a board whose layout can't be rebuilt from a seed
+    public static final long NO_SEED = Long.MIN_VALUE;
+
+    private static final Random seeds = new Random();
+    private static final int EVENT_CAPACITY = 4096;
+    // max number of mine moves when generating a board in a 3BV range
+    // each move is two 3x3 updates and one analysis pass (~10 microseconds on HARD), so an unreachable range gives up after ~20ms
+    private static final int MAX_GENERATE_MOVES = 2000;
+
+    private boolean[][] mines;
+    private boolean[][] clicked;
+    private boolean[][] flagged;
+    private int[][] adjacent;
+    private boolean firstClick;
+    private long startTime, endTime;
+    private boolean gameOver, win;
+    // a mine was revealed by the current move(s), the game is lost once they finish
+    private boolean hitMine;
+    // events made by the current move(s), returned by applyMoves
+    private int[] changes = new int[64];
+    private int changeCount;
+    private int numClicked;
+    private final TileEvents events = new TileEvents(EVENT_CAPACITY);
+    // the layout (and the first click shuffle) only depend on the seed
+    private final Random rng = new Random();
+    private long seed;
+    private int moves;
+    // number of boards generated so far, tells apart games on the same board
+    private int game;
+    private Difficulty difficulty;
+    protected int width, height, numMines;
+
+    // must call reset once before use
+    public Board(Difficulty difficulty) {
+        changeDifficulty(difficulty);
+    }
+
+    protected boolean isMine(int row, int col) {
+        return mines[row][col];
+    }
+
+    protected boolean clicked(int row, int col) {
+        return clicked[row][col];
+    }
+
+    protected boolean setClicked(int row, int col) {
+        if (flagged(row, col))
+            return false;
+        clicked[row][col] = true;
+        if (firstClick) {
+            boolean good = false;
+            while (!good) {
+                good = true;
+                for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                        moveMine(r, c);
+                    }
+                }
+                for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                        if (mines[r][c]) {
+                            good = false;
+                            break;
+                        }
+                    }
+                    if (!good)
+                        break;
+                }
+            }
+            startTime = System.currentTimeMillis();
+        }
+        firstClick = false;
+        return true;
+    }
+
+    protected boolean flagged(int row, int col) {
+        return flagged[row][col];
+    }
+
+    protected void setFlagged(int row, int col) {
+        if (clicked(row, col))
+            return;
+        flagged[row][col] = !flagged[row][col];
+    }
+
+    protected int adjacentMines(int row, int col) {
+        return adjacent[row][col];
+    }
+
+    private void moveMine(int row, int col) {
+        if (mines[row][col]) {
+            int r, c;
+            do {
+                r = rng.nextInt(height);
+                c = rng.nextInt(width);
+            }
+            while (mines[r][c] || r != row && c != col);
+            mines[row][col] = false;
+            mines[r][c] = true;
+            updateAdjacent(row, col, -1);
+            updateAdjacent(r, c, 1);
+        }
+    }
+
+    protected void showMines() {
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                setClicked(i, j);
+            }
+        }
+    }
+
+    protected void reset() {
+        long seed;
+        do {
+            seed = seeds.nextLong();
+        }
+        while (seed == NO_SEED);
+        reset(seed);
+    }
+
+    /**
+     * Reset to the board generated by the given seed
+     */
+    protected void reset(long seed) {
+        assert seed != NO_SEED;
+        generate(seed);
+        events.publish(TileEvents.RESET, 0);
+    }
+
+    /**
+     * Reset to a board whose 3BV is between min and max (inclusive), or as close as possible.
+     * Instead of regenerating, mines are moved one at a time, keeping moves that don't go further from the range.
+     * If any mine was moved the seed no longer gives this layout, so the seed becomes NO_SEED
+     */
+    protected void reset(int min3BV, int max3BV) {
+        assert min3BV <= max3BV;
+        generate(seeds.nextLong());
+        BoardAnalysis analysis = new BoardAnalysis(this);
+        int distance = distance(analysis.get3BV(), min3BV, max3BV);
+        for (int i = 0; i < MAX_GENERATE_MOVES && distance > 0 && numMines > 0 && numMines < width * height; i++) {
+            int from, to;
+            do {
+                from = rng.nextInt(width * height);
+            }
+            while (!mines[from / width][from % width]);
+            do {
+                to = rng.nextInt(width * height);
+            }
+            while (mines[to / width][to % width]);
+            relocateMine(from, to);
+            analysis.analyze();
+            int newDistance = distance(analysis.get3BV(), min3BV, max3BV);
+            if (newDistance <= distance) {
+                distance = newDistance;
+                seed = NO_SEED;
+            }
+            else {
+                relocateMine(to, from);
+            }
+        }
+        events.publish(TileEvents.RESET, 0);
+    }
+
+    // move a mine between two tile indices, only updating the counts around both
+    private void relocateMine(int from, int to) {
+        mines[from / width][from % width] = false;
+        mines[to / width][to % width] = true;
+        updateAdjacent(from / width, from % width, -1);
+        updateAdjacent(to / width, to % width, 1);
+    }
+
+    // adjacent[r][c] is the number of mines in the 3x3 box around (r, c), itself included
+    private void updateAdjacent(int row, int col, int increment) {
+        for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                adjacent[r][c] += increment;
+            }
+        }
+    }
+
+    private static int distance(int value, int min, int max) {
+        return value < min ? min - value : value > max ? value - max : 0;
+    }
+
+    private void generate(long seed) {
+        this.seed = seed;
+        this.rng.setSeed(seed);
+        this.mines = new boolean[height][width];
+        this.clicked = new boolean[height][width];
+        this.flagged = new boolean[height][width];
+        this.adjacent = new int[height][width];
+        this.firstClick = true;
+        this.startTime = 0;
+        this.gameOver = false;
+        this.win = false;
+        this.hitMine = false;
+        this.numClicked = 0;
+        this.moves = 0;
+        this.game++;
+        for (int i = 0; i < numMines; i++) {
+            int r, c;
+            do {
+                r = rng.nextInt(height);
+                c = rng.nextInt(width);
+            }
+            while (mines[r][c]);
+            mines[r][c] = true;
+            updateAdjacent(r, c, 1);
+        }
+    }
+
+    protected void changeDifficulty(Difficulty newDifficulty) {
+        int rows = newDifficulty.rows, cols = newDifficulty.cols, numMines = newDifficulty.mines;
+        assert numMines <= rows * cols;
+        this.difficulty = newDifficulty;
+        this.numMines = numMines;
+        this.width = cols;
+        this.height = rows;
+    }
+
+    public boolean hasNumber(int n) {
+        assert n >= 0 && n <= 8;
+        for (int r = 0; r < height; r++) {
+            for (int c = 0; c < width; c++) {
+                if (adjacent[r][c] == n) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void doClick(int row, int col) {
+        if (clicked(row, col) || flagged(row, col) || gameOver)
+            return;
+
+        changeCount = 0;
+        moves++;
+        reveal(row, col);
+        finishMoves();
+    }
+
+    public void doFlag(int row, int col) {
+        if (clicked(row, col) || gameOver)
+            return;
+
+        changeCount = 0;
+        moves++;
+        toggleFlag(row, col);
+    }
+
+    /**
+     * Encode a move for {@link #applyMoves}
+     * @param type one of REVEAL, FLAG, UNFLAG or CHORD
+     */
+    public int move(int type, int row, int col) {
+        return TileEvents.encode(type, row * width + col);
+    }
+
+    /**
+     * Apply a batch of moves in order, checking for a win or loss once at the end.
+     * Moves that do nothing (revealing a flagged tile, flagging a flagged tile, chording
+     * a tile without the right number of flags) are skipped, and so is everything after a mine
+     * or the last safe tile is revealed, so the result is the same as making the moves one by one
+     * @param moves moves encoded with {@link #move}
+     * @param count the number of moves to apply
+     * @return every change the batch made, encoded as {@link TileEvents} events (including a WIN or LOSE)
+     */
+    public int[] applyMoves(int[] moves, int count) {
+        changeCount = 0;
+        for (int i = 0; i < count && !gameOver && !hitMine && !cleared(); i++) {
+            int tile = TileEvents.tile(moves[i]);
+            int row = tile / width, col = tile % width;
+            if (clicked(row, col) && TileEvents.type(moves[i]) != CHORD)
+                continue;
+            switch (TileEvents.type(moves[i])) {
+                case REVEAL -> {
+                    if (flagged(row, col))
+                        continue;
+                    reveal(row, col);
+                }
+                case FLAG, UNFLAG -> {
+                    if (flagged(row, col) == (TileEvents.type(moves[i]) == FLAG))
+                        continue;
+                    toggleFlag(row, col);
+                }
+                case CHORD -> {
+                    if (!chord(row, col))
+                        continue;
+                }
+                default -> throw new IllegalArgumentException("Unknown move type " + TileEvents.type(moves[i]));
+            }
+            this.moves++;
+        }
+        finishMoves();
+        return Arrays.copyOf(changes, changeCount);
+    }
+
+    public int[] applyMoves(int[] moves) {
+        return applyMoves(moves, moves.length);
+    }
+
+    // reveal every unflagged tile around a revealed number with that many adjacent flags
+    private boolean chord(int row, int col) {
+        if (!clicked(row, col))
+            return false;
+        int flags = 0, hidden = 0;
+        for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                if (flagged(r, c))
+                    flags++;
+                else if (!clicked(r, c))
+                    hidden++;
+            }
+        }
+        if (flags != adjacentMines(row, col) || hidden == 0)
+            return false;
+        for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                reveal(r, c);
+            }
+        }
+        return true;
+    }
+
+    // reveal a tile (and the area around it if it is a zero), the game is only won or lost in finishMoves
+    private void reveal(int row, int col) {
+        if (clicked(row, col) || hitMine || cleared())
+            return;
+
+        boolean success = setClicked(row, col);
+        if (!success)
+            return;
+        publish(TileEvents.REVEAL, row * width + col);
+        if (isMine(row, col)) {
+            hitMine = true;
+            return;
+        }
+        numClicked++;
+        if (adjacentMines(row, col) == 0) {
+            for (int r = row - 1; r <= row + 1; r++) {
+                for (int c = col - 1; c <= col + 1; c++) {
+                    if (r >= 0 && r < height && c >= 0 && c < width) {
+                        reveal(r, c);
+                    }
+                }
+            }
+        }
+    }
+
+    private void toggleFlag(int row, int col) {
+        setFlagged(row, col);
+        publish(flagged(row, col) ? TileEvents.FLAG : TileEvents.UNFLAG, row * width + col);
+    }
+
+    private void finishMoves() {
+        if (gameOver)
+            return;
+        if (hitMine) {
+            gameOver = true;
+            endTime = System.currentTimeMillis();
+            publish(TileEvents.LOSE, 0);
+        }
+        else if (cleared()) {
+            gameOver = true;
+            endTime = System.currentTimeMillis();
+            win = true;
+            showMines();
+            publish(TileEvents.WIN, 0);
+        }
+    }
+
+    // every safe tile is revealed
+    private boolean cleared() {
+        return numClicked == width * height - numMines;
+    }
+
+    // send an event to subscribers and remember it as a change of the current move(s)
+    private void publish(int type, int tile) {
+        events.publish(type, tile);
+        if (changeCount == changes.length)
+            changes = Arrays.copyOf(changes, changes.length * 2);
+        changes[changeCount++] = TileEvents.encode(type, tile);
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    public boolean isWin() {
+        return win;
+    }
+
+    /**
+     * Subscribe to reveals, flags, unflags, win, loss and resets from now on
+     */
+    public TileEvents.Subscription subscribe() {
+        return events.subscribe();
+    }
+
+    public long getElapsedSeconds() {
+        return getElapsedMillis() / 1000;
+    }
+
+    public long getElapsedMillis() {
+        return (gameOver ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    public Difficulty getDifficulty() {
+        return difficulty;
+    }
+
+    /**
+     * @return the seed that generates this layout with reset(seed), or NO_SEED if there is none
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return a number that changes every time the board is reset
+     */
+    public int getGame() {
+        return game;
+    }
+
+    /**
+     * @return the number of clicks and flags made this game
+     */
+    public int getMoves() {
+        return moves;
+    }
+
+    public boolean isGameActive() {
+        return !firstClick;
+    }
+
+    /**
+     * Return the current state of the tile of the given coordinates
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return 0+ for adjacent mines, -1 for undiscovered tiles
+     */
+    public int getState(int row, int col) {
+        if (clicked(row, col))
+            return adjacentMines(row, col);
+        return -1;
+    }
+}
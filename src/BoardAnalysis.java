@@ -0,0 +1,114 @@
+/**
+ * Openings and 3BV (minimum number of clicks needed to clear the board) of a board layout.
+ * Openings are found with a union-find over tile indices, so a pass allocates nothing
+ * and can be rerun on the same board after it changes.
+ */
+class BoardAnalysis {
+    private final Board board;
+    private final int width, height;
+    // union-find parent of each zero tile, -1 for other tiles
+    private final int[] parent;
+    private int openings, isolatedNumbers;
+
+    public BoardAnalysis(Board board) {
+        this.board = board;
+        this.width = board.width;
+        this.height = board.height;
+        this.parent = new int[width * height];
+        analyze();
+    }
+
+    private boolean isZero(int row, int col) {
+        return !board.isMine(row, col) && board.adjacentMines(row, col) == 0;
+    }
+
+    private int find(int tile) {
+        while (parent[tile] != tile) {
+            parent[tile] = parent[parent[tile]];
+            tile = parent[tile];
+        }
+        return tile;
+    }
+
+    // returns true if two separate openings were joined
+    private boolean union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b)
+            return false;
+        if (a < b)
+            parent[b] = a;
+        else
+            parent[a] = b;
+        return true;
+    }
+
+    /**
+     * Recompute everything from the current layout of the board
+     */
+    public void analyze() {
+        assert board.width == width && board.height == height;
+        openings = 0;
+        isolatedNumbers = 0;
+        // zero tiles, joined with the zero tiles before them (left, up-left, up, up-right)
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int tile = row * width + col;
+                if (!isZero(row, col)) {
+                    parent[tile] = -1;
+                    continue;
+                }
+                parent[tile] = tile;
+                openings++;
+                if (row > 0) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                        int above = (row - 1) * width + c;
+                        if (parent[above] != -1 && union(tile, above))
+                            openings--;
+                    }
+                }
+                if (col > 0 && parent[tile - 1] != -1 && union(tile, tile - 1))
+                    openings--;
+            }
+        }
+        // numbers that no opening will clear each need their own click
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (board.isMine(row, col) || parent[row * width + col] != -1 || bordersOpening(row, col))
+                    continue;
+                isolatedNumbers++;
+            }
+        }
+    }
+
+    private boolean bordersOpening(int row, int col) {
+        for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
+                if (parent[r * width + c] != -1)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of connected regions of zero tiles
+     */
+    public int getOpenings() {
+        return openings;
+    }
+
+    /**
+     * @return the number of number tiles that are not next to any opening
+     */
+    public int getIsolatedNumbers() {
+        return isolatedNumbers;
+    }
+
+    /**
+     * @return the minimum number of left clicks needed to clear the board
+     */
+    public int get3BV() {
+        return openings + isolatedNumbers;
+    }
+}
@@ -1,171 +1,19 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Random;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
 import java.util.Timer;
 import java.util.TimerTask;
-
-class Board {
-    private static final Random rng = new Random();
-
-    private boolean[][] mines;
-    private boolean[][] clicked;
-    private boolean[][] flagged;
-    private int[][] adjacent;
-    private boolean firstClick;
-    private long startTime;
-    protected int width, height, numMines;
-
-    // must call reset once before use
-    public Board(Difficulty difficulty) {
-        changeDifficulty(difficulty);
-    }
-
-    protected boolean isMine(int row, int col) {
-        return mines[row][col];
-    }
-
-    protected boolean clicked(int row, int col) {
-        return clicked[row][col];
-    }
-
-    protected boolean setClicked(int row, int col) {
-        if (flagged(row, col))
-            return false;
-        clicked[row][col] = true;
-        if (firstClick) {
-            boolean good = false;
-            while (!good) {
-                good = true;
-                for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
-                    for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
-                        moveMine(r, c);
-                    }
-                }
-                for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
-                    for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
-                        if (mines[r][c]) {
-                            good = false;
-                            break;
-                        }
-                    }
-                    if (!good)
-                        break;
-                }
-            }
-            startTime = System.currentTimeMillis();
-        }
-        firstClick = false;
-        return true;
-    }
-
-    protected boolean flagged(int row, int col) {
-        return flagged[row][col];
-    }
-
-    protected void setFlagged(int row, int col) {
-        if (clicked(row, col))
-            return;
-        flagged[row][col] = !flagged[row][col];
-    }
-
-    protected int adjacentMines(int row, int col) {
-        return adjacent[row][col];
-    }
-
-    private void moveMine(int row, int col) {
-        if (mines[row][col]) {
-            int r, c;
-            do {
-                r = rng.nextInt(height);
-                c = rng.nextInt(width);
-            }
-            while (mines[r][c] || r != row && c != col);
-            mines[row][col] = false;
-            mines[r][c] = true;
-            updateAdjacent(row, col, -1);
-            updateAdjacent(r, c, 1);
-        }
-    }
-
-    protected void showMines() {
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                setClicked(i, j);
-            }
-        }
-    }
-
-    private void updateAdjacent(int row, int col, int increment) {
-        for (int r = Math.max(0, row - 1); r <= Math.min(height - 1, row + 1); r++) {
-            for (int c = Math.max(0, col - 1); c <= Math.min(width - 1, col + 1); c++) {
-                adjacent[r][c] += increment;
-            }
-        }
-    }
-
-    protected void reset() {
-        this.mines = new boolean[height][width];
-        this.clicked = new boolean[height][width];
-        this.flagged = new boolean[height][width];
-        this.adjacent = new int[height][width];
-        this.firstClick = true;
-        this.startTime = 0;
-        for (int i = 0; i < numMines; i++) {
-            int r, c;
-            do {
-                r = rng.nextInt(height);
-                c = rng.nextInt(width);
-            }
-            while (mines[r][c]);
-            mines[r][c] = true;
-            updateAdjacent(r, c, 1);
-        }
-    }
-
-    protected void changeDifficulty(Difficulty newDifficulty) {
-        int rows = newDifficulty.rows, cols = newDifficulty.cols, numMines = newDifficulty.mines;
-        assert numMines <= rows * cols;
-        this.numMines = numMines;
-        this.width = cols;
-        this.height = rows;
-    }
-
-    public boolean hasNumber(int n) {
-        assert n >= 0 && n <= 8;
-        for (int r = 0; r < height; r++) {
-            for (int c = 0; c < width; c++) {
-                if (adjacent[r][c] == n) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    public long getElapsedSeconds() {
-        return (System.currentTimeMillis() - startTime) / 1000;
-    }
-
-    public boolean isGameActive() {
-        return !firstClick;
-    }
-
-    /**
-     * Return the current state of the tile of the given coordinates
-     * @param row the row of the tile
-     * @param col the column of the tile
-     * @return 0+ for adjacent mines, -1 for undiscovered tiles
-     */
-    public int getState(int row, int col) {
-        if (clicked(row, col))
-            return adjacentMines(row, col);
-        return -1;
-    }
-}
+import java.util.concurrent.CompletableFuture;
 
 public class BoardFrame extends Board implements ActionListener, MouseListener {
-    private static final ImageIcon NORMAL, WIN, LOSE;
+    // already 80x80, loaded from the classpath on a background thread when the first frame is created
+    // (the frame is shown without waiting for them)
+    private static final String[] ICON_NAMES = new String[] { "nerd.png", "grinning.png", "dizzy.png" };
+    private static final int NORMAL = 0, WIN = 1, LOSE = 2;
+    private static CompletableFuture<ImageIcon[]> icons;
     private static final Color[] NUMBER_COLORS = new Color[] { Color.BLACK, Color.BLUE, new Color(75, 166, 67), Color.RED, new Color(116, 25, 169), new Color(255, 120, 0), Color.CYAN };
     private static final Font font = new Font("Source Sans", Font.BOLD, 24);
     private JButton[][] buttons;
@@ -174,19 +22,43 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
     private final GridLayout layout;
     private final JButton resetButton;
     private final JLabel timer;
-    private boolean gameOver, win;
-    private int numClicked;
+    private final TileEvents.Subscription tileEvents;
+    private final TileEvents.Handler eventHandler = this::onEvent;
+    // null if the stats directory couldn't be opened
+    private GameStats stats;
+    // the icon the reset button should show, set as soon as the icons are loaded
+    private int resetIcon = NORMAL;
 
     private Solver solver;
 
-    static {
-        String[] fileNames = new String[] { "nerd.png", "grinning.png", "dizzy.png" };
-        ImageIcon[] icons = new ImageIcon[fileNames.length];
-        for (int i = 0; i < fileNames.length; i++)
-            icons[i] = new ImageIcon(new ImageIcon(fileNames[i]).getImage().getScaledInstance(80, 80, Image.SCALE_SMOOTH));
-        NORMAL = icons[0];
-        WIN = icons[1];
-        LOSE = icons[2];
+    private static synchronized void loadIcons() {
+        if (icons != null)
+            return;
+        icons = CompletableFuture.supplyAsync(() -> {
+            ImageIcon[] loaded = new ImageIcon[ICON_NAMES.length];
+            for (int i = 0; i < ICON_NAMES.length; i++) {
+                URL url = BoardFrame.class.getResource(ICON_NAMES[i]);
+                if (url == null)
+                    throw new IllegalStateException("Missing icon " + ICON_NAMES[i] + " on the classpath");
+                loaded[i] = new ImageIcon(url);
+            }
+            return loaded;
+        });
+        // otherwise a failed load only shows up as a blank reset button
+        icons.whenComplete((loaded, e) -> {
+            if (e != null) {
+                System.err.println("Couldn't load the reset button icons");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // never waits for the icons, the button is updated by the callback in the constructor once they load
+    private void setResetIcon(int index) {
+        resetIcon = index;
+        ImageIcon[] loaded = icons.getNow(null);
+        if (loaded != null)
+            resetButton.setIcon(loaded[index]);
     }
 
     public BoardFrame() {
@@ -195,6 +67,14 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
 
     public BoardFrame(Difficulty difficulty) {
         super(difficulty);
+        loadIcons();
+        tileEvents = subscribe();
+        try {
+            stats = new GameStats(Path.of("stats"));
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
 
         frame = new JFrame();
         frame.setResizable(false);
@@ -243,6 +123,14 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
             }
         });
         solverMenu.add(solverMain);
+        JMenuItem solverEndgame = new JMenuItem("Endgame");
+        solverEndgame.setActionCommand("Solver Endgame");
+        solverEndgame.addActionListener(e -> {
+            if (e.getActionCommand().equals("Solver Endgame")) {
+                solver.solveEndgame();
+            }
+        });
+        solverMenu.add(solverEndgame);
         menuBar.add(solverMenu);
         frame.setJMenuBar(menuBar);
 
@@ -253,11 +141,11 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
         panel.setPreferredSize(new Dimension(80, 100));
         panel.setSize(new Dimension(80, 100));
         resetButton = new JButton();
-        resetButton.setIcon(NORMAL);
         resetButton.setBackground(Color.WHITE);
         resetButton.setSelectedIcon(null);
         resetButton.setRolloverIcon(null);
         resetButton.setPressedIcon(null);
+        icons.thenAccept(loaded -> SwingUtilities.invokeLater(() -> resetButton.setIcon(loaded[resetIcon])));
         resetButton.addMouseListener(this);
         resetButton.setPreferredSize(new Dimension(80, 80));
         resetButton.setSize(80, 80);
@@ -297,7 +185,7 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
     }
 
     private void updateTimer() {
-        if (gameOver)
+        if (isGameOver())
             return;
 
         if (isGameActive())
@@ -312,8 +200,6 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
             if (isMine(row, col)) {
                 button.setText("💣");
                 button.setForeground(Color.BLACK);
-                if (!win)
-                    onLose();
             }
             else {
                 int numAdjacent = adjacentMines(row, col);
@@ -335,52 +221,68 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
         }
     }
 
-    private void onGameOver() {
-        gameOver = true;
-    }
-
     private void onWin() {
-        onGameOver();
-        win = true;
-        resetButton.setIcon(WIN);
-        showMines();
+        setResetIcon(WIN);
         forceUpdateButtons();
+        recordGame();
     }
 
     private void onLose() {
-        onGameOver();
-        resetButton.setIcon(LOSE);
+        setResetIcon(LOSE);
+        recordGame();
     }
 
-    public void doClick(int row, int col) {
-        if (clicked(row, col) || gameOver)
+    private void recordGame() {
+        if (stats == null)
             return;
+        try {
+            stats.append(this, solver.getGuesses());
+            stats.flush();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        boolean success = setClicked(row, col);
-        if (!success)
-            return;
-        updateButton(row, col);
-        numClicked++;
-        if (numClicked == width * height - numMines) {
-            onWin();
+    private void onReset() {
+        setResetIcon(NORMAL);
+        forceUpdateButtons();
+    }
+
+    private void onEvent(int type, int tile) {
+        switch (type) {
+            case TileEvents.REVEAL, TileEvents.FLAG, TileEvents.UNFLAG -> updateButton(tile / width, tile % width);
+            case TileEvents.WIN -> onWin();
+            case TileEvents.LOSE -> onLose();
+            case TileEvents.RESET -> onReset();
         }
-        if (adjacentMines(row, col) == 0) {
-            for (int r = row - 1; r <= row + 1; r++) {
-                for (int c = col - 1; c <= col + 1; c++) {
-                    if (r >= 0 && r < height && c >= 0 && c < width) {
-                        doClick(r, c);
-                    }
-                }
-            }
+    }
+
+    // bring the buttons up to date with everything the board has done since the last call
+    private void updateButtons() {
+        if (tileEvents.drain(eventHandler) == -1) {
+            setResetIcon(isGameOver() ? (isWin() ? WIN : LOSE) : NORMAL);
+            forceUpdateButtons();
         }
     }
 
+    @Override
+    public void doClick(int row, int col) {
+        super.doClick(row, col);
+        updateButtons();
+    }
+
+    @Override
     public void doFlag(int row, int col) {
-        if (clicked(row, col) || gameOver)
-            return;
+        super.doFlag(row, col);
+        updateButtons();
+    }
 
-        setFlagged(row, col);
-        updateButton(row, col);
+    @Override
+    public int[] applyMoves(int[] moves, int count) {
+        int[] changes = super.applyMoves(moves, count);
+        updateButtons();
+        return changes;
     }
 
     private void forceUpdateButtons() {
@@ -394,11 +296,13 @@ public class BoardFrame extends Board implements ActionListener, MouseListener {
     @Override
     public void reset() {
         super.reset();
-        gameOver = false;
-        win = false;
-        numClicked = 0;
-        resetButton.setIcon(NORMAL);
-        forceUpdateButtons();
+        updateButtons();
+    }
+
+    @Override
+    public void reset(int min3BV, int max3BV) {
+        super.reset(min3BV, max3BV);
+        updateButtons();
     }
 
     private void recreateButtons() {
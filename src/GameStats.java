@@ -0,0 +1,209 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only store of finished games, one file per column with a fixed width per record.
+ * The seed column is {@link Board#NO_SEED} for games that can't be replayed from a seed.
+ * Queries memory-map the columns and scan them, so no records are ever parsed into objects.
+ * Only one store can have a directory open at a time (across processes), it is locked until closed.
+ */
+class GameStats implements Closeable {
+    public static final byte UNFINISHED = 0, WIN = 1, LOSS = 2;
+
+    // column files and their width in bytes
+    private static final String[] COLUMNS = new String[] { "difficulty", "seed", "result", "elapsed", "moves", "guesses" };
+    private static final int[] WIDTHS = new int[] { 1, 8, 1, 8, 4, 4 };
+    private static final int DIFFICULTY = 0, SEED = 1, RESULT = 2, ELAPSED = 3, MOVES = 4, GUESSES = 5;
+    // records buffered before writing to the column files
+    private static final int BUFFERED_RECORDS = 4096;
+    // records mapped at once while scanning (keeps every mapping under 2GB)
+    private static final int SCAN_RECORDS = 1 << 26;
+
+    private final Path directory;
+    private final FileChannel[] channels = new FileChannel[COLUMNS.length];
+    private final ByteBuffer[] buffers = new ByteBuffer[COLUMNS.length];
+    private long size;
+
+    public GameStats(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        // every writer sets its position from the sizes it sees here, so lock before reading them
+        // the lock is on the first column and is released when it is closed
+        channels[0] = FileChannel.open(directory.resolve(COLUMNS[0] + ".col"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channels[0].tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            channels[0].close();
+            throw new IOException("Game stats in " + directory + " are already open (by another process or store)");
+        }
+        // a crash between column writes can leave some columns longer, only count complete records
+        size = Long.MAX_VALUE;
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0)
+                channels[i] = FileChannel.open(directory.resolve(COLUMNS[i] + ".col"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            size = Math.min(size, channels[i].size() / WIDTHS[i]);
+            buffers[i] = ByteBuffer.allocate(BUFFERED_RECORDS * WIDTHS[i]);
+        }
+        for (int i = 0; i < COLUMNS.length; i++) {
+            channels[i].truncate(size * WIDTHS[i]);
+            channels[i].position(size * WIDTHS[i]);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the number of games stored, including ones not flushed yet
+     */
+    public long size() {
+        return size;
+    }
+
+    public void append(Difficulty difficulty, long seed, byte result, long elapsedMillis, int moves, int guesses) throws IOException {
+        if (!buffers[RESULT].hasRemaining())
+            flush();
+        buffers[DIFFICULTY].put((byte) difficulty.ordinal());
+        buffers[SEED].putLong(seed);
+        buffers[RESULT].put(result);
+        buffers[ELAPSED].putLong(elapsedMillis);
+        buffers[MOVES].putInt(moves);
+        buffers[GUESSES].putInt(guesses);
+        size++;
+    }
+
+    /**
+     * Record the game the board just finished
+     * @param guesses the number of guesses the solver made this game (0 if it wasn't used)
+     */
+    public void append(Board board, int guesses) throws IOException {
+        byte result = !board.isGameOver() ? UNFINISHED : board.isWin() ? WIN : LOSS;
+        append(board.getDifficulty(), board.getSeed(), result, board.getElapsedMillis(), board.getMoves(), guesses);
+    }
+
+    /**
+     * Append every record of another store to this one
+     */
+    public void appendAll(GameStats other) throws IOException {
+        flush();
+        other.flush();
+        for (int i = 0; i < COLUMNS.length; i++) {
+            long bytes = other.size * WIDTHS[i];
+            long copied = 0;
+            while (copied < bytes)
+                copied += other.channels[i].transferTo(copied, bytes - copied, channels[i]);
+        }
+        size += other.size;
+    }
+
+    public void flush() throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            ByteBuffer buffer = buffers[i];
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channels[i].write(buffer);
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        for (FileChannel channel : channels)
+            channel.close();
+    }
+
+    private MappedByteBuffer map(int column, long first, int count) throws IOException {
+        return channels[column].map(FileChannel.MapMode.READ_ONLY, first * WIDTHS[column], (long) count * WIDTHS[column]);
+    }
+
+    /**
+     * @return the number of games for each difficulty (by ordinal) and result
+     */
+    public long[][] countResults() throws IOException {
+        flush();
+        long[][] counts = new long[Difficulty.values().length][3];
+        for (long first = 0; first < size; first += SCAN_RECORDS) {
+            int count = (int) Math.min(SCAN_RECORDS, size - first);
+            MappedByteBuffer difficulties = map(DIFFICULTY, first, count), results = map(RESULT, first, count);
+            for (int i = 0; i < count; i++)
+                counts[difficulties.get(i)][results.get(i)]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Histogram of the elapsed time of won games
+     * @param bucketMillis the width of each bucket
+     * @param buckets the number of buckets, the last one also counts every longer game
+     */
+    public long[] winTimes(Difficulty difficulty, long bucketMillis, int buckets) throws IOException {
+        flush();
+        long[] histogram = new long[buckets];
+        for (long first = 0; first < size; first += SCAN_RECORDS) {
+            int count = (int) Math.min(SCAN_RECORDS, size - first);
+            MappedByteBuffer difficulties = map(DIFFICULTY, first, count), results = map(RESULT, first, count), elapsed = map(ELAPSED, first, count);
+            for (int i = 0; i < count; i++) {
+                if (difficulties.get(i) != difficulty.ordinal() || results.get(i) != WIN)
+                    continue;
+                histogram[(int) Math.min(buckets - 1, elapsed.getLong(i * 8) / bucketMillis)]++;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Histogram of solver guesses per game, the last bucket also counts every game with more
+     */
+    public long[] guessCounts(Difficulty difficulty, int buckets) throws IOException {
+        flush();
+        long[] histogram = new long[buckets];
+        for (long first = 0; first < size; first += SCAN_RECORDS) {
+            int count = (int) Math.min(SCAN_RECORDS, size - first);
+            MappedByteBuffer difficulties = map(DIFFICULTY, first, count), guesses = map(GUESSES, first, count);
+            for (int i = 0; i < count; i++) {
+                if (difficulties.get(i) == difficulty.ordinal())
+                    histogram[Math.min(buckets - 1, guesses.getInt(i * 4))]++;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Print win rates, win times and guess counts for each difficulty
+     */
+    public void printSummary() throws IOException {
+        long[][] counts = countResults();
+        for (Difficulty difficulty : Difficulty.values()) {
+            long[] results = counts[difficulty.ordinal()];
+            long total = results[UNFINISHED] + results[WIN] + results[LOSS];
+            if (total == 0)
+                continue;
+            System.out.printf("%s: %d games, %d won (%.2f%%), %d lost, %d unfinished%n", difficulty.name, total, results[WIN], 100.0 * results[WIN] / total, results[LOSS], results[UNFINISHED]);
+            long[] times = winTimes(difficulty, 1000, 10);
+            StringBuilder line = new StringBuilder("  win seconds:");
+            for (int i = 0; i < times.length; i++)
+                line.append(' ').append(i == times.length - 1 ? i + "+" : i).append('=').append(times[i]);
+            System.out.println(line);
+            long[] guesses = guessCounts(difficulty, 6);
+            line = new StringBuilder("  guesses:");
+            for (int i = 0; i < guesses.length; i++)
+                line.append(' ').append(i == guesses.length - 1 ? i + "+" : i).append('=').append(guesses[i]);
+            System.out.println(line);
+        }
+    }
+}
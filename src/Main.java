@@ -1,6 +1,51 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        // "simulate [difficulty]" plays one solver game without loading any UI classes
+        if (args.length > 0 && args[0].equals("simulate")) {
+            Difficulty difficulty = args.length > 1 ? Difficulty.valueOf(args[1].toUpperCase()) : Difficulty.EASY;
+            Board board = new Board(difficulty);
+            board.reset();
+            Solver solver = new Solver(board);
+            solver.solve();
+            String result = !board.isGameOver() ? "Unfinished" : board.isWin() ? "Won" : "Lost";
+            System.out.println(result + " first simulated game after " + (System.nanoTime() - start) / 1000000 + " ms");
+            try (GameStats stats = new GameStats(Path.of("stats"))) {
+                stats.append(board, solver.getGuesses());
+            }
+            return;
+        }
+        // "batch difficulty games [shards] [mode] [firstSeed]" plays games in separate processes and merges the results
+        // rerunning the same command resumes it
+        if (args.length > 2 && args[0].equals("batch")) {
+            Difficulty difficulty = Difficulty.valueOf(args[1].toUpperCase());
+            long games = Long.parseLong(args[2]);
+            int shards = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+            Simulation.Mode mode = args.length > 4 ? Simulation.Mode.valueOf(args[4].toUpperCase()) : Simulation.Mode.MAIN;
+            long firstSeed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+            if (!new Simulation(difficulty, mode, firstSeed, games, shards).run())
+                System.exit(1);
+            return;
+        }
+        // "shard difficulty mode firstSeed games shards shard" is started by batch for each shard
+        if (args.length > 6 && args[0].equals("shard")) {
+            Simulation simulation = new Simulation(Difficulty.valueOf(args[1]), Simulation.Mode.valueOf(args[2]),
+                    Long.parseLong(args[3]), Long.parseLong(args[4]), Integer.parseInt(args[5]));
+            simulation.runShard(Integer.parseInt(args[6]));
+            return;
+        }
+        // "stats [directory]" summarizes every recorded game
+        if (args.length > 0 && args[0].equals("stats")) {
+            try (GameStats stats = new GameStats(Path.of(args.length > 1 ? args[1] : "stats"))) {
+                stats.printSummary();
+            }
+            return;
+        }
         BoardFrame boardFrame = new BoardFrame(Difficulty.EASY);
+        System.out.println("First frame after " + (System.nanoTime() - start) / 1000000 + " ms");
         /*
         int i = 1;
         while (!boardFrame.hasNumber(9)) {
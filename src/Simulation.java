@@ -0,0 +1,153 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A batch of solver games split into shards, each played by a separate JVM.
+ * Game i of the job uses seed firstSeed + i, so every shard (and the merged result) is reproducible.
+ * Each shard writes its own {@link GameStats} directory and a "done" marker when finished;
+ * rerunning the same job skips finished shards and continues unfinished ones where they stopped.
+ * Shards write their games to disk at least every FLUSH_MILLIS, so a crash loses at most the last ~2 seconds of games.
+ */
+class Simulation {
+    public enum Mode {
+        SIMPLE, MAIN, ENDGAME
+    }
+
+    // how often a shard writes its buffered games to disk
+    private static final long FLUSH_MILLIS = 2000;
+
+    private final Difficulty difficulty;
+    private final Mode mode;
+    private final long firstSeed;
+    private final long games;
+    private final int shards;
+    private final Path directory;
+
+    public Simulation(Difficulty difficulty, Mode mode, long firstSeed, long games, int shards) {
+        assert games >= 0 && shards > 0;
+        this.difficulty = difficulty;
+        this.mode = mode;
+        this.firstSeed = firstSeed;
+        this.games = games;
+        this.shards = shards;
+        this.directory = Path.of("simulations", difficulty.name() + "-" + mode + "-" + firstSeed + "-" + games + "-" + shards);
+    }
+
+    private long shardStart(int shard) {
+        return games * shard / shards;
+    }
+
+    private Path shardDirectory(int shard) {
+        return directory.resolve("shard-" + shard);
+    }
+
+    private Path doneMarker(int shard) {
+        return shardDirectory(shard).resolve("done");
+    }
+
+    /**
+     * Run every unfinished shard in its own process, then merge all shards and print the summary
+     * @return false if a shard failed (finished shards are kept for the next run)
+     */
+    public boolean run() throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        List<Integer> running = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            if (Files.exists(doneMarker(shard))) {
+                System.out.println("Shard " + shard + " already finished");
+                continue;
+            }
+            processes.add(launchShard(shard));
+            running.add(shard);
+        }
+        boolean success = true;
+        for (int i = 0; i < processes.size(); i++) {
+            int exitCode = processes.get(i).waitFor();
+            if (exitCode != 0 || !Files.exists(doneMarker(running.get(i)))) {
+                System.err.println("Shard " + running.get(i) + " failed with exit code " + exitCode);
+                success = false;
+            }
+        }
+        if (!success)
+            return false;
+
+        // merge into a fresh store so rerunning never counts a shard twice
+        Path merged = directory.resolve("merged");
+        if (Files.exists(merged)) {
+            try (Stream<Path> files = Files.walk(merged)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+                    Files.delete(file);
+            }
+        }
+        try (GameStats stats = new GameStats(merged)) {
+            for (int shard = 0; shard < shards; shard++) {
+                try (GameStats shardStats = new GameStats(shardDirectory(shard))) {
+                    stats.appendAll(shardStats);
+                }
+            }
+            System.out.println(stats.size() + " games merged into " + merged);
+            stats.printSummary();
+        }
+        return true;
+    }
+
+    private Process launchShard(int shard) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Main.class.getName(), "shard",
+                difficulty.name(), mode.name(), firstSeed + "", games + "", shards + "", shard + "");
+        // the solvers print every step, only keep errors
+        builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        builder.directory(new File("").getAbsoluteFile());
+        System.out.println("Starting shard " + shard + " (" + (shardStart(shard + 1) - shardStart(shard)) + " games)");
+        return builder.start();
+    }
+
+    /**
+     * Play the games of one shard in this process, skipping games already recorded
+     */
+    public void runShard(int shard) throws IOException {
+        long start = shardStart(shard), end = shardStart(shard + 1);
+        // one board and solver for the whole shard, so the solver's caches carry over between games
+        Board board = new Board(difficulty);
+        Solver solver = new Solver(board);
+        if (mode == Mode.ENDGAME)
+            solver.setEndgameThreshold(Integer.MAX_VALUE);
+        try (GameStats stats = new GameStats(shardDirectory(shard))) {
+            long lastFlush = System.currentTimeMillis();
+            for (long game = start + stats.size(); game < end; game++) {
+                play(stats, board, solver, firstSeed + game);
+                if (System.currentTimeMillis() - lastFlush >= FLUSH_MILLIS) {
+                    stats.flush();
+                    lastFlush = System.currentTimeMillis();
+                }
+            }
+        }
+        Files.createFile(doneMarker(shard));
+    }
+
+    private void play(GameStats stats, Board board, Solver solver, long seed) throws IOException {
+        board.reset(seed);
+        try {
+            switch (mode) {
+                case SIMPLE -> solver.solveSimple();
+                case MAIN -> solver.solve();
+                case ENDGAME -> solver.solveEndgame();
+            }
+        }
+        catch (RuntimeException e) {
+            // a solver bug on one seed must not stop the shard (resuming would hit the same seed again)
+            System.err.println("Solver failed on seed " + seed + ", recording it as unfinished");
+            e.printStackTrace();
+            stats.append(difficulty, seed, GameStats.UNFINISHED, board.getElapsedMillis(), board.getMoves(), solver.getGuesses());
+            return;
+        }
+        stats.append(board, solver.getGuesses());
+    }
+}
@@ -68,16 +68,59 @@ class Node {
 }
 
 public class Solver {
-    public BoardFrame board;
+    public Board board;
 
     private static final int MAX_MOVES = Integer.MAX_VALUE;
 
     private static final int MAX_LOOPS = 10;
 
-    public Solver(BoardFrame board) {
+    // max number of unflagged unknown tiles for the endgame solver to pick guesses (see solveRest)
+    private static final int DEFAULT_ENDGAME_THRESHOLD = 60;
+
+    // max number of enumerated groups kept between endgame steps
+    private static final int MAX_CACHED_GROUPS = 4096;
+
+    private int endgameThreshold = DEFAULT_ENDGAME_THRESHOLD;
+    // moves that were not guaranteed to be safe
+    private int guesses;
+    // the board game the guesses were made in
+    private int guessGame;
+    // moves waiting for the next board.applyMoves
+    private int[] queued = new int[64];
+    private int queuedCount;
+    // enumerated endgame groups by their constraints (value, size, then board indices of each),
+    // a group's counts only depend on its constraints so entries stay valid across steps,
+    // and across games when the same solver keeps playing on its board
+    private final Map<List<Integer>, Enumeration> groupCache = new HashMap<>();
+
+    public Solver(Board board) {
         this.board = board;
     }
 
+    public int getEndgameThreshold() {
+        return endgameThreshold;
+    }
+
+    /**
+     * @return the number of guesses made in the board's current game
+     */
+    public int getGuesses() {
+        return guessGame == board.getGame() ? guesses : 0;
+    }
+
+    private void addGuess() {
+        if (guessGame != board.getGame()) {
+            guessGame = board.getGame();
+            guesses = 0;
+        }
+        guesses++;
+    }
+
+    public void setEndgameThreshold(int endgameThreshold) {
+        assert endgameThreshold >= 0;
+        this.endgameThreshold = endgameThreshold;
+    }
+
 
     // GOOD SOLVER
     
@@ -85,6 +128,66 @@ public class Solver {
     public void solve() {
         SolverInstance solver = new SolverInstance();
         solver.solve();
+        solveRest();
+    }
+
+    // after the graph solver: make every simple move, then every move the endgame solver can prove,
+    // and when there are none guess (with the endgame solver once at most endgameThreshold tiles are unknown)
+    private void solveRest() {
+        while (!board.isGameOver()) {
+            solveSimple();
+            if (board.isGameOver())
+                break;
+            EndgameInstance endgame = new EndgameInstance();
+            // above the threshold only its guaranteed moves are used, its guesses need the mine count to matter
+            if (!endgame.step(endgame.size() <= endgameThreshold) && !guessLocal())
+                break;
+        }
+    }
+
+    // guess the tile with the lowest estimated chance of being a mine, using only the numbers around
+    // each tile (or the average mine density for tiles next to no number)
+    private boolean guessLocal() {
+        int hidden = 0, flags = 0;
+        for (int row = 0; row < board.height; row++) {
+            for (int col = 0; col < board.width; col++) {
+                if (board.flagged(row, col))
+                    flags++;
+                else if (board.getState(row, col) == -1)
+                    hidden++;
+            }
+        }
+        if (hidden == 0)
+            return false;
+        double density = (double) (board.numMines - flags) / hidden;
+        int bestRow = -1, bestCol = -1;
+        double bestRisk = Double.MAX_VALUE;
+        for (int row = 0; row < board.height; row++) {
+            for (int col = 0; col < board.width; col++) {
+                if (board.flagged(row, col) || board.getState(row, col) != -1)
+                    continue;
+                double risk = -1;
+                for (int r = Math.max(0, row - 1); r <= Math.min(board.height - 1, row + 1); r++) {
+                    for (int c = Math.max(0, col - 1); c <= Math.min(board.width - 1, col + 1); c++) {
+                        int state = board.getState(r, c);
+                        if (state > 0)
+                            risk = Math.max(risk, (double) (state - getFlaggedAdjacent(r, c)) / getEmptyAdjacent(r, c));
+                    }
+                }
+                if (risk < 0)
+                    risk = density;
+                if (risk < bestRisk) {
+                    bestRisk = risk;
+                    bestRow = row;
+                    bestCol = col;
+                }
+            }
+        }
+        System.out.println("Guessing " + bestRow + ", " + bestCol + " (estimated mine chance=" + bestRisk + ")");
+        queue(Board.REVEAL, bestRow, bestCol);
+        applyQueued();
+        addGuess();
+        return true;
     }
     
     // GOOD SOLVER CLASS
@@ -166,10 +269,15 @@ public class Solver {
                 else if (node.count() == node.numAdjacent) {
                     // if guaranteed location (empty tiles equals number of adjacent mines)
                     used = true;
-                    // flag empty tiles
+                    // flag empty tiles in one batch (copied, since updating the graph removes them from node)
+                    List<Node> mines = new ArrayList<>();
                     for (Node adjacent : node.getConnections()) {
+                        mines.add(adjacent);
+                        queue(Board.FLAG, adjacent.coord.row(), adjacent.coord.col());
+                    }
+                    applyQueued();
+                    for (Node adjacent : mines) {
                         int row = adjacent.coord.row(), col = adjacent.coord.col();
-                        board.doFlag(row, col);
                         // update number tiles surrounding the mine
                         for (int r = Math.max(0, row - 1); r <= Math.min(board.height - 1, row + 1); r++) {
                             for (int c = Math.max(0, col - 1); c <= Math.min(board.width - 1, col + 1); c++) {
@@ -199,42 +307,454 @@ public class Solver {
         }
     }
 
+    // ENDGAME SOLVER
+
+    // Exactly counts every mine layout consistent with the numbers and the total mine count.
+    // Only runs once there are at most endgameThreshold unknown tiles left
+    public void solveEndgame() {
+        if (!board.isGameActive())
+            board.doClick(board.height / 2, board.width / 2);
+        while (!board.isGameOver()) {
+            EndgameInstance endgame = new EndgameInstance();
+            if (endgame.size() > endgameThreshold || !endgame.step(true))
+                break;
+        }
+    }
+
+    // ENDGAME SOLVER CLASS
+    private class EndgameInstance {
+        // unknown tiles (flags are ignored so a wrong flag can't break the count)
+        private final int[] unknowns;
+        // index into unknowns for each tile, -1 if the tile is revealed
+        private final int[] unknownIndex;
+        // total weight of each unknown tile being a mine
+        private final double[] mineWeight;
+        private double totalWeight;
+
+        public EndgameInstance() {
+            int size = board.height * board.width;
+            unknownIndex = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (board.clicked(i / board.width, i % board.width))
+                    unknownIndex[i] = -1;
+                else
+                    unknownIndex[i] = count++;
+            }
+            unknowns = new int[count];
+            for (int i = 0; i < size; i++) {
+                if (unknownIndex[i] != -1)
+                    unknowns[unknownIndex[i]] = i;
+            }
+            mineWeight = new double[count];
+        }
+
+        // unknown tiles that aren't flagged (flags are all certain once the simple solver has placed them,
+        // so on HARD the 99 flagged mines would otherwise keep this above the threshold until the very end)
+        public int size() {
+            int count = 0;
+            for (int tile : unknowns) {
+                if (!board.flagged(tile / board.width, tile % board.width))
+                    count++;
+            }
+            return count;
+        }
+
+        // make every guaranteed move, or the safest guess if there are none (and guess is true)
+        // returns false if no moves were made
+        public boolean step(boolean guess) {
+            if (unknowns.length == 0)
+                return false;
+            count();
+            if (totalWeight == 0)
+                return false;
+
+            boolean madeMove = false;
+            for (int i = 0; i < unknowns.length; i++) {
+                int row = unknowns[i] / board.width, col = unknowns[i] % board.width;
+                if (mineWeight[i] == 0) {
+                    queue(Board.UNFLAG, row, col);
+                    queue(Board.REVEAL, row, col);
+                    madeMove = true;
+                }
+                else if (mineWeight[i] == totalWeight) {
+                    queue(Board.FLAG, row, col);
+                }
+            }
+            applyQueued();
+            if (madeMove || board.isGameOver())
+                return true;
+            if (!guess)
+                return false;
+
+            // no safe tiles, click the one least likely to be a mine
+            int best = -1;
+            for (int i = 0; i < unknowns.length; i++) {
+                if (mineWeight[i] != totalWeight && (best == -1 || mineWeight[i] < mineWeight[best]))
+                    best = i;
+            }
+            if (best == -1)
+                return false;
+            int row = unknowns[best] / board.width, col = unknowns[best] % board.width;
+            System.out.println("Endgame guessing " + row + ", " + col + " (mine chance=" + mineWeight[best] / totalWeight + ")");
+            queue(Board.UNFLAG, row, col);
+            queue(Board.REVEAL, row, col);
+            applyQueued();
+            addGuess();
+            return true;
+        }
+
+        private void count() {
+            int n = unknowns.length;
+            double[][] choose = choose(n);
+
+            // constraints from revealed numbers next to unknown tiles
+            List<int[]> constraints = new ArrayList<>();
+            List<Integer> values = new ArrayList<>();
+            boolean[] frontier = new boolean[n];
+            for (int row = 0; row < board.height; row++) {
+                for (int col = 0; col < board.width; col++) {
+                    if (!board.clicked(row, col))
+                        continue;
+                    List<Integer> vars = new ArrayList<>();
+                    for (int r = Math.max(0, row - 1); r <= Math.min(board.height - 1, row + 1); r++) {
+                        for (int c = Math.max(0, col - 1); c <= Math.min(board.width - 1, col + 1); c++) {
+                            int index = unknownIndex[r * board.width + c];
+                            if (index != -1)
+                                vars.add(index);
+                        }
+                    }
+                    if (vars.isEmpty())
+                        continue;
+                    int[] array = new int[vars.size()];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = vars.get(i);
+                        frontier[array[i]] = true;
+                    }
+                    constraints.add(array);
+                    values.add(board.adjacentMines(row, col));
+                }
+            }
+
+            // split the frontier into groups of tiles that don't share any constraint
+            int[] component = new int[n];
+            Arrays.fill(component, -1);
+            List<List<Integer>> componentTiles = new ArrayList<>();
+            List<List<Integer>> componentConstraints = new ArrayList<>();
+            List<List<Integer>> tileConstraints = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                tileConstraints.add(new ArrayList<>());
+            for (int i = 0; i < constraints.size(); i++) {
+                for (int var : constraints.get(i))
+                    tileConstraints.get(var).add(i);
+            }
+            boolean[] constraintSeen = new boolean[constraints.size()];
+            for (int start = 0; start < n; start++) {
+                if (!frontier[start] || component[start] != -1)
+                    continue;
+                int id = componentTiles.size();
+                List<Integer> tiles = new ArrayList<>();
+                List<Integer> groupConstraints = new ArrayList<>();
+                Deque<Integer> queue = new ArrayDeque<>();
+                component[start] = id;
+                queue.add(start);
+                while (!queue.isEmpty()) {
+                    int tile = queue.poll();
+                    tiles.add(tile);
+                    for (int constraint : tileConstraints.get(tile)) {
+                        if (constraintSeen[constraint])
+                            continue;
+                        constraintSeen[constraint] = true;
+                        groupConstraints.add(constraint);
+                        for (int var : constraints.get(constraint)) {
+                            if (component[var] == -1) {
+                                component[var] = id;
+                                queue.add(var);
+                            }
+                        }
+                    }
+                }
+                componentTiles.add(tiles);
+                componentConstraints.add(groupConstraints);
+            }
+
+            // enumerate each group on its own: ways[k] = layouts with k mines
+            int groups = componentTiles.size();
+            double[][] ways = new double[groups][];
+            double[][][] tileWays = new double[groups][][];
+            for (int g = 0; g < groups; g++) {
+                // sorted so the same constraints always give the same key and tile order
+                Collections.sort(componentTiles.get(g));
+                Collections.sort(componentConstraints.get(g));
+                List<Integer> key = new ArrayList<>();
+                for (int constraint : componentConstraints.get(g)) {
+                    key.add(values.get(constraint));
+                    key.add(constraints.get(constraint).length);
+                    for (int var : constraints.get(constraint))
+                        key.add(unknowns[var]);
+                }
+                Enumeration enumeration = groupCache.get(key);
+                if (enumeration == null) {
+                    enumeration = new Enumeration(componentTiles.get(g), componentConstraints.get(g), constraints, values);
+                    enumeration.run();
+                    if (groupCache.size() >= MAX_CACHED_GROUPS)
+                        groupCache.clear();
+                    groupCache.put(key, enumeration);
+                }
+                ways[g] = enumeration.ways;
+                tileWays[g] = enumeration.tileWays;
+            }
+
+            // prefix/suffix convolutions so each group can be combined with "everything else" once
+            double[][] prefix = new double[groups + 1][];
+            double[][] suffix = new double[groups + 1][];
+            prefix[0] = new double[] { 1 };
+            suffix[groups] = new double[] { 1 };
+            for (int g = 0; g < groups; g++)
+                prefix[g + 1] = convolve(prefix[g], ways[g]);
+            for (int g = groups - 1; g >= 0; g--)
+                suffix[g] = convolve(ways[g], suffix[g + 1]);
+
+            int interior = 0;
+            for (int i = 0; i < n; i++) {
+                if (!frontier[i])
+                    interior++;
+            }
+            int mines = board.numMines;
+            double[] all = prefix[groups];
+            totalWeight = 0;
+            double interiorWeight = 0;
+            for (int k = 0; k < all.length; k++) {
+                int rest = mines - k;
+                if (rest < 0 || rest > interior)
+                    continue;
+                totalWeight += all[k] * choose[interior][rest];
+                if (rest > 0)
+                    interiorWeight += all[k] * choose[interior - 1][rest - 1];
+            }
+
+            for (int g = 0; g < groups; g++) {
+                double[] others = convolve(prefix[g], suffix[g + 1]);
+                List<Integer> tiles = componentTiles.get(g);
+                for (int t = 0; t < tiles.size(); t++) {
+                    double weight = 0;
+                    double[] byMines = tileWays[g][t];
+                    for (int k = 0; k < byMines.length; k++) {
+                        if (byMines[k] == 0)
+                            continue;
+                        for (int s = 0; s < others.length; s++) {
+                            int rest = mines - k - s;
+                            if (rest >= 0 && rest <= interior)
+                                weight += byMines[k] * others[s] * choose[interior][rest];
+                        }
+                    }
+                    mineWeight[tiles.get(t)] = weight;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (!frontier[i])
+                    mineWeight[i] = interiorWeight;
+            }
+        }
+    }
+
+    // backtracking over one group of frontier tiles
+    private static class Enumeration {
+        private final int[] tiles;
+        private final int[][] constraints;
+        // mines still needed and tiles still unassigned for each constraint
+        private final int[] needed, open;
+        // constraints touching each tile (local indices)
+        private final int[][] tileConstraints;
+        private final boolean[] assignment;
+        public final double[] ways;
+        public final double[][] tileWays;
+
+        public Enumeration(List<Integer> tiles, List<Integer> groupConstraints, List<int[]> allConstraints, List<Integer> values) {
+            this.tiles = new int[tiles.size()];
+            Map<Integer, Integer> local = new HashMap<>();
+            for (int i = 0; i < this.tiles.length; i++) {
+                this.tiles[i] = tiles.get(i);
+                local.put(this.tiles[i], i);
+            }
+            constraints = new int[groupConstraints.size()][];
+            needed = new int[constraints.length];
+            open = new int[constraints.length];
+            List<List<Integer>> byTile = new ArrayList<>();
+            for (int i = 0; i < this.tiles.length; i++)
+                byTile.add(new ArrayList<>());
+            for (int i = 0; i < constraints.length; i++) {
+                int[] vars = allConstraints.get(groupConstraints.get(i));
+                constraints[i] = new int[vars.length];
+                for (int j = 0; j < vars.length; j++) {
+                    constraints[i][j] = local.get(vars[j]);
+                    byTile.get(constraints[i][j]).add(i);
+                }
+                needed[i] = values.get(groupConstraints.get(i));
+                open[i] = vars.length;
+            }
+            tileConstraints = new int[this.tiles.length][];
+            for (int i = 0; i < this.tiles.length; i++)
+                tileConstraints[i] = byTile.get(i).stream().mapToInt(Integer::intValue).toArray();
+            assignment = new boolean[this.tiles.length];
+            ways = new double[this.tiles.length + 1];
+            tileWays = new double[this.tiles.length][this.tiles.length + 1];
+        }
+
+        public void run() {
+            assign(0, 0);
+        }
+
+        private void assign(int index, int mines) {
+            if (index == tiles.length) {
+                ways[mines]++;
+                for (int i = 0; i < tiles.length; i++) {
+                    if (assignment[i])
+                        tileWays[i][mines]++;
+                }
+                return;
+            }
+            for (int mine = 0; mine <= 1; mine++) {
+                boolean valid = true;
+                for (int constraint : tileConstraints[index]) {
+                    needed[constraint] -= mine;
+                    open[constraint]--;
+                    if (needed[constraint] < 0 || needed[constraint] > open[constraint])
+                        valid = false;
+                }
+                if (valid) {
+                    assignment[index] = mine == 1;
+                    assign(index + 1, mines + mine);
+                }
+                for (int constraint : tileConstraints[index]) {
+                    needed[constraint] += mine;
+                    open[constraint]++;
+                }
+            }
+            assignment[index] = false;
+        }
+    }
+
+    private static double[] convolve(double[] a, double[] b) {
+        double[] result = new double[a.length + b.length - 1];
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] == 0)
+                continue;
+            for (int j = 0; j < b.length; j++)
+                result[i + j] += a[i] * b[j];
+        }
+        return result;
+    }
+
+    // pascal's triangle up to n
+    private static double[][] choose(int n) {
+        double[][] choose = new double[n + 1][n + 1];
+        for (int i = 0; i <= n; i++) {
+            choose[i][0] = 1;
+            for (int j = 1; j <= i; j++)
+                choose[i][j] = choose[i - 1][j - 1] + choose[i - 1][j];
+        }
+        return choose;
+    }
+
     // SIMPLE SOLVER
+    // Only number tiles next to a change since the last check can have a new move,
+    // so the board's tile events decide which tiles are checked instead of scanning every tile
     public void solveSimple() {
+        Candidates candidates = new Candidates();
         if (!board.isGameActive())
             board.doClick(board.height / 2, board.width / 2);
+        candidates.addAll();
 
         boolean madeMove;
         int moves = 0;
         do {
-            List<Integer> toClick = getSimpleFlag();
+            candidates.update();
+            List<Integer> toClick = getSimpleFlag(candidates.get());
             madeMove = !toClick.isEmpty();
             moves++;
             for (Integer integer : toClick) {
-                flagAdjacent(integer / board.width, integer % board.width);
+                queueAdjacent(Board.FLAG, integer / board.width, integer % board.width);
             }
-            toClick = getSimpleEmpty();
+            applyQueued();
+            candidates.update();
+            toClick = getSimpleEmpty(candidates.get());
             madeMove = madeMove || !toClick.isEmpty();
+            candidates.clear();
+            // every one of these has as many adjacent flags as its number
             for (Integer integer : toClick) {
-                clickAdjacent(integer / board.width, integer % board.width);
+                queue(Board.CHORD, integer / board.width, integer % board.width);
             }
+            applyQueued();
         }
         while (madeMove && moves < MAX_MOVES);
     }
 
+    // tiles to check for simple moves, filled from the board's tile events
+    private class Candidates implements TileEvents.Handler {
+        private final TileEvents.Subscription events = board.subscribe();
+        private final boolean[] added = new boolean[board.height * board.width];
+        private final List<Integer> tiles = new ArrayList<>();
+
+        private void add(int tile) {
+            if (!added[tile]) {
+                added[tile] = true;
+                tiles.add(tile);
+            }
+        }
+
+        public void addAll() {
+            for (int tile = 0; tile < added.length; tile++)
+                add(tile);
+        }
+
+        // add every tile around a tile that changed since the last update
+        public void update() {
+            if (events.drain(this) == -1)
+                addAll();
+        }
+
+        @Override
+        public void onEvent(int type, int tile) {
+            if (type == TileEvents.RESET) {
+                addAll();
+                return;
+            }
+            if (type != TileEvents.REVEAL && type != TileEvents.FLAG && type != TileEvents.UNFLAG)
+                return;
+            int row = tile / board.width, col = tile % board.width;
+            for (int r = Math.max(0, row - 1); r <= Math.min(board.height - 1, row + 1); r++) {
+                for (int c = Math.max(0, col - 1); c <= Math.min(board.width - 1, col + 1); c++) {
+                    add(r * board.width + c);
+                }
+            }
+        }
+
+        // in board order, like a full scan
+        public List<Integer> get() {
+            Collections.sort(tiles);
+            return tiles;
+        }
+
+        public void clear() {
+            for (int tile : tiles)
+                added[tile] = false;
+            tiles.clear();
+        }
+    }
+
     // get all tiles that have guaranteed adjacent mines
-    private List<Integer> getSimpleFlag() {
+    private List<Integer> getSimpleFlag(List<Integer> candidates) {
         List<Integer> list = new LinkedList<>();
-        for (int row = 0; row < board.height; row++) {
-            for (int col = 0; col < board.width; col++) {
-                int state = board.getState(row, col);
-                if (state <= 0)
-                    continue;
-                int flagged = getFlaggedAdjacent(row, col);
-                int extra = state - getEmptyAdjacent(row, col) - flagged;
-                if (extra == 0 && flagged != state) {
-                    list.add(row * board.width + col);
-                }
+        for (int tile : candidates) {
+            int row = tile / board.width, col = tile % board.width;
+            int state = board.getState(row, col);
+            if (state <= 0)
+                continue;
+            int flagged = getFlaggedAdjacent(row, col);
+            int extra = state - getEmptyAdjacent(row, col) - flagged;
+            if (extra == 0 && flagged != state) {
+                list.add(tile);
             }
         }
         return list;
@@ -252,17 +772,16 @@ public class Solver {
     }
 
     // get all tiles that have adjacent flags that add up to number
-    private List<Integer> getSimpleEmpty() {
+    private List<Integer> getSimpleEmpty(List<Integer> candidates) {
         List<Integer> list = new LinkedList<>();
-        for (int row = 0; row < board.height; row++) {
-            for (int col = 0; col < board.width; col++) {
-                int state = board.getState(row, col);
-                if (state <= 0)
-                    continue;
-                int extra = getFlaggedAdjacent(row, col) - state;
-                if (extra == 0 && getEmptyAdjacent(row, col) > 0) {
-                    list.add(row * board.width + col);
-                }
+        for (int tile : candidates) {
+            int row = tile / board.width, col = tile % board.width;
+            int state = board.getState(row, col);
+            if (state <= 0)
+                continue;
+            int extra = getFlaggedAdjacent(row, col) - state;
+            if (extra == 0 && getEmptyAdjacent(row, col) > 0) {
+                list.add(tile);
             }
         }
         return list;
@@ -291,19 +810,28 @@ public class Solver {
     }
 
     private void clickAdjacent(int row, int col) {
-        for (int r = Math.max(0, row - 1); r <= Math.min(board.height - 1, row + 1); r++) {
-            for (int c = Math.max(0, col - 1); c <= Math.min(board.width - 1, col + 1); c++) {
-                board.doClick(r, c);
-            }
-        }
+        queueAdjacent(Board.REVEAL, row, col);
+        applyQueued();
     }
 
-    private void flagAdjacent(int row, int col) {
+    private void queueAdjacent(int type, int row, int col) {
         for (int r = Math.max(0, row - 1); r <= Math.min(board.height - 1, row + 1); r++) {
             for (int c = Math.max(0, col - 1); c <= Math.min(board.width - 1, col + 1); c++) {
-                if (!board.flagged(r, c))
-                    board.doFlag(r, c);
+                queue(type, r, c);
             }
         }
     }
+
+    private void queue(int type, int row, int col) {
+        if (queuedCount == queued.length)
+            queued = Arrays.copyOf(queued, queued.length * 2);
+        queued[queuedCount++] = board.move(type, row, col);
+    }
+
+    // apply every queued move in one batch
+    private void applyQueued() {
+        if (queuedCount > 0)
+            board.applyMoves(queued, queuedCount);
+        queuedCount = 0;
+    }
 }
\ No newline at end of file
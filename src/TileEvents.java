@@ -0,0 +1,93 @@
+/**
+ * Preallocated ring buffer of tile events published by a {@link Board}.
+ * Each event is a single int (type in the top bits, tile index in the rest)
+ * so publishing and draining never allocate.
+ */
+class TileEvents {
+    public static final int REVEAL = 0, FLAG = 1, UNFLAG = 2, WIN = 3, LOSE = 4, RESET = 5;
+
+    private static final int TYPE_SHIFT = 28;
+    private static final int TILE_MASK = (1 << TYPE_SHIFT) - 1;
+
+    private final int[] buffer;
+    private final int mask;
+    // total number of events ever published
+    private long written;
+
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Called once per event
+         * @param type one of the event constants
+         * @param tile row * width + col of the tile, 0 for WIN, LOSE and RESET
+         */
+        void onEvent(int type, int tile);
+    }
+
+    /**
+     * A reader of the event stream with its own position
+     */
+    public class Subscription {
+        private long read;
+
+        private Subscription() {
+            read = written;
+        }
+
+        /**
+         * Pass every event published since the last drain to the handler
+         * @return the number of events handled, or -1 if the subscriber fell more than
+         * a full buffer behind and has to rescan the board instead
+         */
+        public int drain(Handler handler) {
+            if (written - read > buffer.length) {
+                read = written;
+                return -1;
+            }
+            int count = 0;
+            while (read < written) {
+                int event = buffer[(int) (read++ & mask)];
+                handler.onEvent(type(event), tile(event));
+                count++;
+            }
+            return count;
+        }
+
+        public boolean hasEvents() {
+            return read < written;
+        }
+    }
+
+    public TileEvents(int capacity) {
+        assert capacity > 0;
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        buffer = new int[size];
+        mask = size - 1;
+    }
+
+    public void publish(int type, int tile) {
+        buffer[(int) (written++ & mask)] = encode(type, tile);
+    }
+
+    public static int encode(int type, int tile) {
+        assert tile >= 0 && tile <= TILE_MASK;
+        return type << TYPE_SHIFT | tile;
+    }
+
+    public static int type(int event) {
+        return event >>> TYPE_SHIFT;
+    }
+
+    public static int tile(int event) {
+        return event & TILE_MASK;
+    }
+
+    /**
+     * Start reading events from now on
+     */
+    public Subscription subscribe() {
+        return new Subscription();
+    }
+}